@@ -0,0 +1,352 @@
+// Copyright (c) Microsoft and contributors.  All rights reserved.
+//
+// This source code is licensed under the MIT license found in the
+// LICENSE file in the root directory of this source tree.
+
+package smb.sdk.sample.common;
+
+import com.azure.core.management.exception.ManagementException;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+// Contains a per-endpoint circuit breaker and hedged reads used to guard ARM calls during regional degradation
+public class ArmResilience
+{
+    // Number of most recent calls the circuit breaker evaluates
+    static final int WINDOW_SIZE = 20;
+
+    // Minimum number of calls in the window before the breaker can trip
+    static final int MINIMUM_CALLS = 10;
+
+    // Fraction of failed calls in the window that trips the breaker
+    static final double FAILURE_RATE_THRESHOLD = 0.5;
+
+    // Calls slower than this are counted as slow
+    static final long SLOW_CALL_THRESHOLD_MS = 30_000;
+
+    // Fraction of slow calls in the window that trips the breaker
+    static final double SLOW_CALL_RATE_THRESHOLD = 0.5;
+
+    // Time the breaker stays open before letting a single trial call through
+    static final long OPEN_DURATION_MS = 30_000;
+
+    // Hedge delay used until enough latency samples have been collected
+    static final long DEFAULT_HEDGE_DELAY_MS = 2_000;
+
+    // Lower and upper bounds applied to the p95-based hedge delay
+    static final long MIN_HEDGE_DELAY_MS = 100;
+    static final long MAX_HEDGE_DELAY_MS = 10_000;
+
+    // Minimum number of latency samples before the p95 is trusted
+    static final int MIN_LATENCY_SAMPLES = 20;
+
+    // Maximum number of hedged requests running at the same time across all endpoints
+    static final int MAX_IN_FLIGHT_HEDGES = 4;
+
+    // Maximum number of threads executing ARM reads
+    static final int MAX_THREADS = 16;
+
+    private static final ArmResilience instance = new ArmResilience(System::currentTimeMillis);
+
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final Semaphore hedgeBudget = new Semaphore(MAX_IN_FLIGHT_HEDGES);
+    private final LongSupplier clock;
+    private final ExecutorService executor;
+
+    /**
+     * Creates a resilience layer with its own circuit breakers and read executor
+     * @param clock Time source in milliseconds used for breaker timing and call latency
+     */
+    ArmResilience(LongSupplier clock)
+    {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable ->
+                {
+                    Thread thread = new Thread(runnable, "arm-read-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+
+        this.clock = clock;
+        this.executor = pool;
+    }
+
+    /**
+     * Executes an idempotent ARM read guarded by the endpoint circuit breaker. If the first attempt has not completed
+     * after the endpoint p95 latency, a duplicate request is sent, budget permitting, and the first attempt to succeed
+     * wins. The losing attempt cannot be aborted and runs to completion in the background.
+     * @param endpoint Name identifying the ARM endpoint, e.g. the resource type being read
+     * @param call The read to perform; it must be safe to execute more than once
+     * @return The result of the first attempt to succeed
+     * @throws CircuitBreakerOpenException if the circuit breaker for the endpoint is open
+     */
+    public static <R> R hedgedRead(String endpoint, Supplier<R> call)
+    {
+        return instance.read(endpoint, call);
+    }
+
+    /**
+     * Checks whether an ARM exception corresponds to a resource that does not exist
+     * @param e Exception thrown by the ARM call
+     * @return true if the exception represents a 404 response
+     */
+    public static boolean isNotFound(Throwable e)
+    {
+        if (e instanceof ManagementException && ((ManagementException) e).getResponse() != null)
+            return ((ManagementException) e).getResponse().getStatusCode() == 404;
+
+        return e.getMessage() != null && e.getMessage().contains("Status code 404");
+    }
+
+    <R> R read(String endpoint, Supplier<R> call)
+    {
+        Endpoint state = endpoints.computeIfAbsent(endpoint, Endpoint::new);
+        boolean trial = state.acquirePermission();
+
+        long start = clock.getAsLong();
+        boolean succeeded = false;
+        try
+        {
+            R result = execute(state, call);
+            succeeded = true;
+            return result;
+        }
+        catch (RuntimeException e)
+        {
+            succeeded = isNotFound(e);
+            throw e;
+        }
+        finally
+        {
+            // Every exit is recorded so that a half-open trial always releases its slot
+            state.record(trial, !succeeded, clock.getAsLong() - start);
+        }
+    }
+
+    long hedgeDelayMs(String endpoint)
+    {
+        return endpoints.computeIfAbsent(endpoint, Endpoint::new).hedgeDelayMs();
+    }
+
+    State state(String endpoint)
+    {
+        return endpoints.computeIfAbsent(endpoint, Endpoint::new).state;
+    }
+
+    private <R> R execute(Endpoint state, Supplier<R> call)
+    {
+        CompletableFuture<R> primary = CompletableFuture.supplyAsync(call, executor);
+        try
+        {
+            try
+            {
+                return primary.get(state.hedgeDelayMs(), TimeUnit.MILLISECONDS);
+            }
+            catch (TimeoutException e)
+            {
+                if (!hedgeBudget.tryAcquire())
+                    return primary.get();
+
+                CompletableFuture<R> hedge = CompletableFuture.supplyAsync(call, executor);
+                hedge.whenComplete((value, error) -> hedgeBudget.release());
+                return firstSuccess(primary, hedge).get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        }
+        catch (ExecutionException e)
+        {
+            throw unwrap(e);
+        }
+    }
+
+    // Completes with the first attempt to succeed or return a 404, and fails only once both attempts have failed
+    private static <R> CompletableFuture<R> firstSuccess(CompletableFuture<R> primary, CompletableFuture<R> hedge)
+    {
+        CompletableFuture<R> result = new CompletableFuture<>();
+        AtomicInteger remaining = new AtomicInteger(2);
+        BiConsumer<R, Throwable> handler = (value, error) ->
+        {
+            if (error == null)
+                result.complete(value);
+            else if (isNotFound(unwrap(error)) || remaining.decrementAndGet() == 0)
+                result.completeExceptionally(unwrap(error));
+        };
+        primary.whenComplete(handler);
+        hedge.whenComplete(handler);
+        return result;
+    }
+
+    private static RuntimeException unwrap(Throwable e)
+    {
+        Throwable cause = e;
+        while ((cause instanceof ExecutionException || cause instanceof CompletionException) && cause.getCause() != null)
+            cause = cause.getCause();
+
+        if (cause instanceof RuntimeException)
+            return (RuntimeException) cause;
+        return new CompletionException(cause);
+    }
+
+    /**
+     * Thrown when a call is rejected because the circuit breaker for its endpoint is open
+     */
+    public static class CircuitBreakerOpenException extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        public CircuitBreakerOpenException(String endpoint)
+        {
+            super("Circuit breaker open for ARM endpoint " + endpoint + ", failing fast");
+        }
+    }
+
+    enum State
+    {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    // Circuit breaker and latency statistics for a single endpoint
+    private class Endpoint
+    {
+        private final String name;
+        private final boolean[] failures = new boolean[WINDOW_SIZE];
+        private final boolean[] slowCalls = new boolean[WINDOW_SIZE];
+        private final long[] latencies = new long[100];
+
+        private volatile State state = State.CLOSED;
+        private long openedAt;
+        private int calls;
+        private int latencyCount;
+
+        Endpoint(String name)
+        {
+            this.name = name;
+        }
+
+        /**
+         * Checks whether a call may proceed
+         * @return true if the call was granted the single half-open trial
+         */
+        synchronized boolean acquirePermission()
+        {
+            switch (state)
+            {
+                case OPEN:
+                    if (clock.getAsLong() - openedAt >= OPEN_DURATION_MS)
+                    {
+                        state = State.HALF_OPEN;
+                        return true;
+                    }
+                    throw new CircuitBreakerOpenException(name);
+
+                case HALF_OPEN:
+                    // Only one trial call is allowed while half open
+                    throw new CircuitBreakerOpenException(name);
+
+                default:
+                    return false;
+            }
+        }
+
+        synchronized long hedgeDelayMs()
+        {
+            int samples = Math.min(latencyCount, latencies.length);
+            if (samples < MIN_LATENCY_SAMPLES)
+                return DEFAULT_HEDGE_DELAY_MS;
+
+            long[] sorted = Arrays.copyOf(latencies, samples);
+            Arrays.sort(sorted);
+            long p95 = sorted[(int) Math.ceil(samples * 0.95) - 1];
+            return Math.max(MIN_HEDGE_DELAY_MS, Math.min(MAX_HEDGE_DELAY_MS, p95));
+        }
+
+        synchronized void record(boolean trial, boolean failed, long latencyMs)
+        {
+            if (!failed)
+                latencies[latencyCount++ % latencies.length] = latencyMs;
+
+            boolean slow = latencyMs >= SLOW_CALL_THRESHOLD_MS;
+
+            switch (state)
+            {
+                case OPEN:
+                    // Calls that were in flight when the breaker tripped must not extend the open period
+                    return;
+
+                case HALF_OPEN:
+                    if (!trial)
+                        return;
+
+                    if (failed || slow)
+                        trip();
+                    else
+                        reset();
+                    return;
+
+                default:
+                    break;
+            }
+
+            int slot = calls++ % WINDOW_SIZE;
+            failures[slot] = failed;
+            slowCalls[slot] = slow;
+
+            int samples = Math.min(calls, WINDOW_SIZE);
+            if (samples < MINIMUM_CALLS)
+                return;
+
+            int failedCount = 0;
+            int slowCount = 0;
+            for (int i = 0; i < samples; i++)
+            {
+                if (failures[i])
+                    failedCount++;
+                if (slowCalls[i])
+                    slowCount++;
+            }
+
+            if ((double) failedCount / samples >= FAILURE_RATE_THRESHOLD
+                    || (double) slowCount / samples >= SLOW_CALL_RATE_THRESHOLD)
+                trip();
+        }
+
+        private void trip()
+        {
+            state = State.OPEN;
+            openedAt = clock.getAsLong();
+            calls = 0;
+            Arrays.fill(failures, false);
+            Arrays.fill(slowCalls, false);
+            Utils.writeWarningMessage("Circuit breaker opened for ARM endpoint " + name);
+        }
+
+        private void reset()
+        {
+            state = State.CLOSED;
+            Utils.writeConsoleMessage("Circuit breaker closed for ARM endpoint " + name);
+        }
+    }
+}
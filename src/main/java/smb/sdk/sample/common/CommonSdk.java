@@ -8,6 +8,8 @@ package smb.sdk.sample.common;
 import com.azure.resourcemanager.netapp.fluent.NetAppManagementClient;
 import com.azure.resourcemanager.netapp.fluent.models.*;
 
+import java.util.function.Supplier;
+
 // Contains public methods for SDK related operations
 public class CommonSdk
 {
@@ -21,51 +23,43 @@ public class CommonSdk
      *                   Snapshot       -> ResourceGroupName, AccountName, PoolName, VolumeName, SnapshotName
      * @param clazz Valid class types: NetAppAccountInner, CapacityPoolInner, VolumeInner, SnapshotInner
      * @return Valid resource T
+     * @throws RuntimeException if ARM fails with anything other than a 404, including an open circuit breaker
      */
     public static <T> Object getResource(NetAppManagementClient anfClient, String[] parameters, Class<T> clazz)
     {
-        try
-        {
-            switch (clazz.getSimpleName())
-            {
-                case "NetAppAccountInner":
-                    return anfClient.getAccounts().getByResourceGroup(
-                            parameters[0],
-                            parameters[1]);
-
-                case "SnapshotPolicyInner":
-                    return anfClient.getSnapshotPolicies().get(
-                            parameters[0],
-                            parameters[1],
-                            parameters[2]);
-
-                case "CapacityPoolInner":
-                    return anfClient.getPools().get(
-                            parameters[0],
-                            parameters[1],
-                            parameters[2]);
-
-                case "VolumeInner":
-                    return anfClient.getVolumes().get(
-                            parameters[0],
-                            parameters[1],
-                            parameters[2],
-                            parameters[3]);
-
-                case "SnapshotInner":
-                    return anfClient.getSnapshots().get(
-                            parameters[0],
-                            parameters[1],
-                            parameters[2],
-                            parameters[3],
-                            parameters[4]);
-            }
-        }
-        catch (Exception e)
+        switch (clazz.getSimpleName())
         {
-            if (e.getMessage().contains("Status code 404"))
-                return null;
-            Utils.writeWarningMessage("Error finding resource - " + e.getMessage());
+            case "NetAppAccountInner":
+                return getOrNull(() -> ArmResilience.hedgedRead(clazz.getSimpleName(), () -> anfClient.getAccounts().getByResourceGroup(
+                        parameters[0],
+                        parameters[1])));
+
+            case "SnapshotPolicyInner":
+                return getOrNull(() -> ArmResilience.hedgedRead(clazz.getSimpleName(), () -> anfClient.getSnapshotPolicies().get(
+                        parameters[0],
+                        parameters[1],
+                        parameters[2])));
+
+            case "CapacityPoolInner":
+                return getOrNull(() -> ArmResilience.hedgedRead(clazz.getSimpleName(), () -> anfClient.getPools().get(
+                        parameters[0],
+                        parameters[1],
+                        parameters[2])));
+
+            case "VolumeInner":
+                return getOrNull(() -> ArmResilience.hedgedRead(clazz.getSimpleName(), () -> anfClient.getVolumes().get(
+                        parameters[0],
+                        parameters[1],
+                        parameters[2],
+                        parameters[3])));
+
+            case "SnapshotInner":
+                return getOrNull(() -> ArmResilience.hedgedRead(clazz.getSimpleName(), () -> anfClient.getSnapshots().get(
+                        parameters[0],
+                        parameters[1],
+                        parameters[2],
+                        parameters[3],
+                        parameters[4])));
         }
 
         return null;
@@ -76,6 +70,7 @@ public class CommonSdk
      * @param anfClient Azure NetApp Files Management Client
      * @param resourceId Resource id of the resource that was deleted
      * @param clazz Valid class types: NetAppAccountInner, CapacityPoolInner, VolumeInner, SnapshotInner
+     * @throws IllegalStateException if the resource was not confirmed deleted before polling ran out of retries
      */
     public static <T> void waitForNoANFResource(NetAppManagementClient anfClient, String resourceId, Class<T> clazz)
     {
@@ -83,66 +78,98 @@ public class CommonSdk
     }
 
     /**
-     * This function checks if a specific ANF resource that was recently deleted stops existing. It breaks the wait
-     * if the resource is not found anymore or if polling reached its maximum retries.
+     * This function checks if a specific ANF resource that was recently deleted stops existing. It returns as soon as
+     * ARM reports the resource as not found. Any other ARM error, including an open circuit breaker, consumes a retry.
+     * If polling reaches its maximum retries without confirming the deletion, an exception is thrown so that a
+     * degraded ARM is never mistaken for a successful deletion.
      * @param anfClient Azure NetApp Files Management Client
      * @param resourceId Resource id of the resource that was deleted
      * @param intervalInSec Time in second that the function will poll to see if the resource has been deleted
      * @param retries Number of times polling will be performed
      * @param clazz Valid class types: NetAppAccountInner, CapacityPoolInner, VolumeInner, SnapshotInner
+     * @throws IllegalStateException if the resource was not confirmed deleted before polling ran out of retries
      */
     public static <T> void waitForNoANFResource(NetAppManagementClient anfClient, String resourceId, int intervalInSec, int retries, Class<T> clazz)
+    {
+        Supplier<Object> lookup = () ->
+        {
+            switch (clazz.getSimpleName())
+            {
+                case "NetAppAccountInner":
+                    return anfClient.getAccounts().getByResourceGroup(ResourceUriUtils.getResourceGroup(resourceId),
+                            ResourceUriUtils.getAnfAccount(resourceId));
+
+                case "CapacityPoolInner":
+                    return anfClient.getPools().get(ResourceUriUtils.getResourceGroup(resourceId),
+                            ResourceUriUtils.getAnfAccount(resourceId),
+                            ResourceUriUtils.getAnfCapacityPool(resourceId));
+
+                case "VolumeInner":
+                    return anfClient.getVolumes().get(ResourceUriUtils.getResourceGroup(resourceId),
+                            ResourceUriUtils.getAnfAccount(resourceId),
+                            ResourceUriUtils.getAnfCapacityPool(resourceId),
+                            ResourceUriUtils.getAnfVolume(resourceId));
+
+                case "SnapshotInner":
+                    return anfClient.getSnapshots().get(ResourceUriUtils.getResourceGroup(resourceId),
+                            ResourceUriUtils.getAnfAccount(resourceId),
+                            ResourceUriUtils.getAnfCapacityPool(resourceId),
+                            ResourceUriUtils.getAnfVolume(resourceId),
+                            ResourceUriUtils.getAnfSnapshot(resourceId));
+            }
+
+            throw new IllegalArgumentException("Unsupported resource type " + clazz.getSimpleName());
+        };
+
+        if (!pollUntilGone(() -> ArmResilience.hedgedRead(clazz.getSimpleName(), lookup), retries,
+                () -> Utils.threadSleep(intervalInSec*2000)))
+            throw new IllegalStateException("Could not confirm deletion of resource " + resourceId + " after " + retries + " retries");
+    }
+
+    /**
+     * Performs a resource lookup, treating a 404 as the resource not existing
+     * @param lookup The ARM read returning the resource
+     * @return The resource, or null if ARM reported it as not found
+     * @throws RuntimeException any other error raised by the lookup
+     */
+    static <R> R getOrNull(Supplier<R> lookup)
+    {
+        try
+        {
+            return lookup.get();
+        }
+        catch (RuntimeException e)
+        {
+            if (ArmResilience.isNotFound(e))
+                return null;
+            throw e;
+        }
+    }
+
+    /**
+     * Polls a resource until it is reported as not found. Errors are logged and consume a retry.
+     * @param lookup The ARM read returning the resource
+     * @param retries Number of times polling will be performed
+     * @param sleep Pause performed before each poll
+     * @return true if the resource was confirmed gone, false if polling ran out of retries
+     */
+    static boolean pollUntilGone(Supplier<?> lookup, int retries, Runnable sleep)
     {
         for (int i = 0; i < retries; i++)
         {
-            Utils.threadSleep(intervalInSec*2000);
+            sleep.run();
 
             try
             {
-                switch (clazz.getSimpleName())
-                {
-                    case "NetAppAccountInner":
-                        NetAppAccountInner account = anfClient.getAccounts().getByResourceGroup(ResourceUriUtils.getResourceGroup(resourceId),
-                                ResourceUriUtils.getAnfAccount(resourceId));
-                        if (account == null)
-                            return;
-
-                        continue;
-
-                    case "CapacityPoolInner":
-                        CapacityPoolInner pool = anfClient.getPools().get(ResourceUriUtils.getResourceGroup(resourceId),
-                                ResourceUriUtils.getAnfAccount(resourceId),
-                                ResourceUriUtils.getAnfCapacityPool(resourceId));
-                        if (pool == null)
-                            return;
-
-                        continue;
-
-                    case "VolumeInner":
-                        VolumeInner volume = anfClient.getVolumes().get(ResourceUriUtils.getResourceGroup(resourceId),
-                                ResourceUriUtils.getAnfAccount(resourceId),
-                                ResourceUriUtils.getAnfCapacityPool(resourceId),
-                                ResourceUriUtils.getAnfVolume(resourceId));
-                        if (volume == null)
-                            return;
-
-                        continue;
-
-                    case "SnapshotInner":
-                        SnapshotInner snapshot = anfClient.getSnapshots().get(ResourceUriUtils.getResourceGroup(resourceId),
-                                ResourceUriUtils.getAnfAccount(resourceId),
-                                ResourceUriUtils.getAnfCapacityPool(resourceId),
-                                ResourceUriUtils.getAnfVolume(resourceId),
-                                ResourceUriUtils.getAnfSnapshot(resourceId));
-                        if (snapshot == null)
-                            return;
-                }
+                if (getOrNull(lookup) == null)
+                    return true;
             }
-            catch (Exception e)
+            catch (RuntimeException e)
             {
                 Utils.writeWarningMessage(e.getMessage());
-                break;
             }
         }
+
+        return false;
     }
 }
@@ -0,0 +1,88 @@
+// Copyright (c) Microsoft and contributors.  All rights reserved.
+//
+// This source code is licensed under the MIT license found in the
+// LICENSE file in the root directory of this source tree.
+
+package smb.sdk.sample.common;
+
+import com.azure.core.http.HttpHeaders;
+import com.azure.core.http.HttpMethod;
+import com.azure.core.http.HttpRequest;
+import com.azure.core.http.HttpResponse;
+import com.azure.core.management.exception.ManagementException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+// Builds the errors a degraded ARM endpoint returns, for injection by stub suppliers
+final class ArmFaults
+{
+    private ArmFaults()
+    {
+    }
+
+    /**
+     * Creates the exception the SDK raises for an ARM error response
+     * @param statusCode HTTP status code of the response
+     * @return A ManagementException whose message does not mention the status code
+     */
+    static ManagementException status(int statusCode)
+    {
+        return new ManagementException("Injected ARM fault", new StubResponse(statusCode));
+    }
+
+    private static class StubResponse extends HttpResponse
+    {
+        private final int statusCode;
+
+        StubResponse(int statusCode)
+        {
+            super(new HttpRequest(HttpMethod.GET, "https://management.azure.com/stub"));
+            this.statusCode = statusCode;
+        }
+
+        @Override
+        public int getStatusCode()
+        {
+            return statusCode;
+        }
+
+        @Override
+        public String getHeaderValue(String name)
+        {
+            return null;
+        }
+
+        @Override
+        public HttpHeaders getHeaders()
+        {
+            return new HttpHeaders();
+        }
+
+        @Override
+        public Flux<ByteBuffer> getBody()
+        {
+            return Flux.empty();
+        }
+
+        @Override
+        public Mono<byte[]> getBodyAsByteArray()
+        {
+            return Mono.empty();
+        }
+
+        @Override
+        public Mono<String> getBodyAsString()
+        {
+            return Mono.empty();
+        }
+
+        @Override
+        public Mono<String> getBodyAsString(Charset charset)
+        {
+            return Mono.empty();
+        }
+    }
+}
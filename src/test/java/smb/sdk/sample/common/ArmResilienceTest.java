@@ -0,0 +1,383 @@
+// Copyright (c) Microsoft and contributors.  All rights reserved.
+//
+// This source code is licensed under the MIT license found in the
+// LICENSE file in the root directory of this source tree.
+
+package smb.sdk.sample.common;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+// Verifies the circuit breaker and hedged reads against a fault-injecting stub in place of ARM
+public class ArmResilienceTest
+{
+    private static final String ENDPOINT = "VolumeInner";
+
+    private AtomicLong clock;
+    private ArmResilience resilience;
+
+    @Before
+    public void setUp()
+    {
+        clock = new AtomicLong(1_000_000);
+        resilience = new ArmResilience(clock::get);
+    }
+
+    @Test
+    public void tripsAtFailureRateThreshold()
+    {
+        for (int i = 0; i < ArmResilience.MINIMUM_CALLS - 1; i++)
+        {
+            boolean fail = i % 2 == 0;
+            read(() -> fail ? fault("Status code 503") : "ok");
+        }
+        assertEquals(ArmResilience.State.CLOSED, resilience.state(ENDPOINT));
+
+        // The tenth call brings the window to 5 failures out of 10
+        read(() -> "ok");
+        assertEquals(ArmResilience.State.OPEN, resilience.state(ENDPOINT));
+    }
+
+    @Test
+    public void doesNotTripBeforeMinimumCalls()
+    {
+        for (int i = 0; i < ArmResilience.MINIMUM_CALLS - 1; i++)
+            read(() -> fault("Status code 503"));
+
+        assertEquals(ArmResilience.State.CLOSED, resilience.state(ENDPOINT));
+    }
+
+    @Test
+    public void tripsAtSlowCallRateThreshold()
+    {
+        for (int i = 0; i < ArmResilience.MINIMUM_CALLS; i++)
+        {
+            boolean slow = i % 2 == 0;
+            read(() ->
+            {
+                if (slow)
+                    clock.addAndGet(ArmResilience.SLOW_CALL_THRESHOLD_MS);
+                return "ok";
+            });
+        }
+
+        assertEquals(ArmResilience.State.OPEN, resilience.state(ENDPOINT));
+    }
+
+    @Test
+    public void failsFastWhileOpenWithoutInvokingSupplier()
+    {
+        trip();
+
+        AtomicInteger invocations = new AtomicInteger();
+        assertThrows(ArmResilience.CircuitBreakerOpenException.class,
+                () -> resilience.read(ENDPOINT, () -> "ok" + invocations.incrementAndGet()));
+        assertEquals(0, invocations.get());
+    }
+
+    @Test
+    public void allowsSingleTrialCallAfterOpenDuration() throws Exception
+    {
+        trip();
+        clock.addAndGet(ArmResilience.OPEN_DURATION_MS);
+
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> trial = CompletableFuture.supplyAsync(() -> resilience.read(ENDPOINT, () ->
+        {
+            await(release);
+            return "trial";
+        }));
+        waitForState(ArmResilience.State.HALF_OPEN);
+
+        AtomicInteger invocations = new AtomicInteger();
+        assertThrows(ArmResilience.CircuitBreakerOpenException.class,
+                () -> resilience.read(ENDPOINT, () -> "ok" + invocations.incrementAndGet()));
+        assertEquals(0, invocations.get());
+
+        release.countDown();
+        assertEquals("trial", trial.get(5, TimeUnit.SECONDS));
+        assertEquals(ArmResilience.State.CLOSED, resilience.state(ENDPOINT));
+    }
+
+    @Test
+    public void failedTrialReopensBreaker()
+    {
+        trip();
+        clock.addAndGet(ArmResilience.OPEN_DURATION_MS);
+
+        read(() -> fault("Status code 503"));
+        assertEquals(ArmResilience.State.OPEN, resilience.state(ENDPOINT));
+        assertThrows(ArmResilience.CircuitBreakerOpenException.class, () -> resilience.read(ENDPOINT, () -> "ok"));
+    }
+
+    @Test
+    public void interruptedTrialReleasesTrialSlot() throws Exception
+    {
+        trip();
+        clock.addAndGet(ArmResilience.OPEN_DURATION_MS);
+
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Throwable> outcome = new CompletableFuture<>();
+        Thread caller = new Thread(() ->
+        {
+            try
+            {
+                resilience.read(ENDPOINT, () ->
+                {
+                    await(release);
+                    return "trial";
+                });
+                outcome.complete(null);
+            }
+            catch (Throwable e)
+            {
+                outcome.complete(e);
+            }
+        });
+        caller.start();
+        waitForState(ArmResilience.State.HALF_OPEN);
+
+        caller.interrupt();
+        assertTrue(outcome.get(5, TimeUnit.SECONDS).getCause() instanceof InterruptedException);
+        release.countDown();
+        assertEquals(ArmResilience.State.OPEN, resilience.state(ENDPOINT));
+
+        clock.addAndGet(ArmResilience.OPEN_DURATION_MS);
+        assertEquals("ok", resilience.read(ENDPOINT, () -> "ok"));
+        assertEquals(ArmResilience.State.CLOSED, resilience.state(ENDPOINT));
+    }
+
+    @Test
+    public void ignoresStaleResultsWhileOpen() throws Exception
+    {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> stale = CompletableFuture.runAsync(() -> read(() ->
+        {
+            started.countDown();
+            await(release);
+            return fault("Status code 503");
+        }));
+        await(started);
+        trip();
+        long openedAt = clock.get();
+
+        clock.addAndGet(ArmResilience.OPEN_DURATION_MS - 1);
+        release.countDown();
+        stale.get(5, TimeUnit.SECONDS);
+
+        // Had the stale failure re-tripped the breaker, the open period would have restarted
+        clock.set(openedAt + ArmResilience.OPEN_DURATION_MS);
+        assertEquals("ok", resilience.read(ENDPOINT, () -> "ok"));
+        assertEquals(ArmResilience.State.CLOSED, resilience.state(ENDPOINT));
+    }
+
+    @Test
+    public void doesNotHedgeFastCalls()
+    {
+        AtomicInteger invocations = new AtomicInteger();
+        assertEquals("ok", resilience.read(ENDPOINT, () ->
+        {
+            invocations.incrementAndGet();
+            return "ok";
+        }));
+        assertEquals(1, invocations.get());
+    }
+
+    @Test
+    public void sendsHedgeAfterDelayAndReturnsFasterAttempt()
+    {
+        warmUpLatencies();
+        long hedgeDelayMs = resilience.hedgeDelayMs(ENDPOINT);
+        assertEquals(ArmResilience.MIN_HEDGE_DELAY_MS, hedgeDelayMs);
+
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger invocations = new AtomicInteger();
+        AtomicLongArray startedAt = new AtomicLongArray(2);
+        String result = resilience.read(ENDPOINT, () ->
+        {
+            int attempt = invocations.getAndIncrement();
+            startedAt.set(attempt, System.nanoTime());
+            if (attempt == 0)
+            {
+                await(release);
+                return "primary";
+            }
+            return "hedge";
+        });
+        release.countDown();
+
+        assertEquals("hedge", result);
+        assertEquals(2, invocations.get());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(startedAt.get(1) - startedAt.get(0)) >= hedgeDelayMs);
+    }
+
+    @Test
+    public void hedgeSucceedsWhenPrimaryFailsAfterHedgeStarts()
+    {
+        warmUpLatencies();
+
+        CountDownLatch hedgeStarted = new CountDownLatch(1);
+        CountDownLatch primaryFailing = new CountDownLatch(1);
+        AtomicReference<Thread> primaryThread = new AtomicReference<>();
+        AtomicInteger invocations = new AtomicInteger();
+        String result = resilience.read(ENDPOINT, () ->
+        {
+            if (invocations.getAndIncrement() == 0)
+            {
+                primaryThread.set(Thread.currentThread());
+                await(hedgeStarted);
+                primaryFailing.countDown();
+                return fault("Status code 503");
+            }
+            hedgeStarted.countDown();
+            await(primaryFailing);
+            awaitIdle(primaryThread.get());
+            return "hedge";
+        });
+
+        assertEquals("hedge", result);
+        assertEquals(2, invocations.get());
+    }
+
+    @Test
+    public void failsOnceWhenBothAttemptsFail()
+    {
+        warmUpLatencies();
+
+        CountDownLatch hedgeStarted = new CountDownLatch(1);
+        AtomicInteger invocations = new AtomicInteger();
+        RuntimeException e = assertThrows(RuntimeException.class, () -> resilience.read(ENDPOINT, () ->
+        {
+            if (invocations.getAndIncrement() == 0)
+            {
+                await(hedgeStarted);
+                return fault("primary failed");
+            }
+            hedgeStarted.countDown();
+            return fault("hedge failed");
+        }));
+
+        assertTrue(e.getMessage().endsWith("failed"));
+        assertEquals(2, invocations.get());
+
+        // A single failure out of the warm-up window must not be counted twice
+        for (int i = 0; i < ArmResilience.MINIMUM_CALLS - 2; i++)
+            read(() -> fault("Status code 503"));
+        assertEquals(ArmResilience.State.CLOSED, resilience.state(ENDPOINT));
+    }
+
+    @Test
+    public void countsNotFoundAsSuccess()
+    {
+        RuntimeException notFound = ArmFaults.status(404);
+        assertTrue(ArmResilience.isNotFound(notFound));
+
+        for (int i = 0; i < ArmResilience.WINDOW_SIZE; i++)
+            assertSame(notFound, assertThrows(RuntimeException.class, () -> resilience.read(ENDPOINT, () ->
+            {
+                throw notFound;
+            })));
+
+        assertEquals(ArmResilience.State.CLOSED, resilience.state(ENDPOINT));
+    }
+
+    @Test
+    public void countsServerErrorAsFailure()
+    {
+        RuntimeException unavailable = ArmFaults.status(503);
+        assertFalse(ArmResilience.isNotFound(unavailable));
+
+        for (int i = 0; i < ArmResilience.MINIMUM_CALLS; i++)
+            read(() ->
+            {
+                throw unavailable;
+            });
+
+        assertEquals(ArmResilience.State.OPEN, resilience.state(ENDPOINT));
+    }
+
+    @Test
+    public void fallsBackToMessageForNotFound()
+    {
+        assertTrue(ArmResilience.isNotFound(new RuntimeException("Status code 404, \"Resource not found\"")));
+        assertFalse(ArmResilience.isNotFound(new RuntimeException("Status code 503")));
+    }
+
+    private void trip()
+    {
+        for (int i = 0; i < ArmResilience.MINIMUM_CALLS; i++)
+            read(() -> fault("Status code 503"));
+
+        assertEquals(ArmResilience.State.OPEN, resilience.state(ENDPOINT));
+    }
+
+    private void warmUpLatencies()
+    {
+        for (int i = 0; i < ArmResilience.MIN_LATENCY_SAMPLES; i++)
+            resilience.read(ENDPOINT, () -> "ok");
+    }
+
+    // Performs a read and swallows any failure the stub injected
+    private void read(Supplier<String> call)
+    {
+        try
+        {
+            resilience.read(ENDPOINT, call);
+        }
+        catch (RuntimeException e)
+        {
+            // Expected for injected faults
+        }
+    }
+
+    private void waitForState(ArmResilience.State expected) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (resilience.state(ENDPOINT) != expected && System.nanoTime() < deadline)
+            Thread.sleep(5);
+
+        assertEquals(expected, resilience.state(ENDPOINT));
+    }
+
+    // Waits until a pool thread has finished its task and is parked waiting for the next one
+    private static void awaitIdle(Thread thread)
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (thread.getState() != Thread.State.TIMED_WAITING && System.nanoTime() < deadline)
+            Thread.onSpinWait();
+    }
+
+    private static String fault(String message)
+    {
+        throw new RuntimeException(message);
+    }
+
+    private static void await(CountDownLatch latch)
+    {
+        await(latch, 5_000);
+    }
+
+    private static void await(CountDownLatch latch, long timeoutMs)
+    {
+        try
+        {
+            latch.await(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
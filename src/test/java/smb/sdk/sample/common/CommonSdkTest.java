@@ -0,0 +1,100 @@
+// Copyright (c) Microsoft and contributors.  All rights reserved.
+//
+// This source code is licensed under the MIT license found in the
+// LICENSE file in the root directory of this source tree.
+
+package smb.sdk.sample.common;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+// Verifies how resource lookups and deletion polling react to faults injected by a stub in place of ARM
+public class CommonSdkTest
+{
+    @Test
+    public void getOrNullReturnsResource()
+    {
+        assertEquals("volume", CommonSdk.getOrNull(() -> "volume"));
+    }
+
+    @Test
+    public void getOrNullMapsNotFoundToNull()
+    {
+        assertNull(CommonSdk.getOrNull(() ->
+        {
+            throw ArmFaults.status(404);
+        }));
+    }
+
+    @Test
+    public void getOrNullRethrowsServerErrors()
+    {
+        RuntimeException fault = ArmFaults.status(503);
+        assertSame(fault, assertThrows(RuntimeException.class, () -> CommonSdk.getOrNull(() ->
+        {
+            throw fault;
+        })));
+    }
+
+    @Test
+    public void getOrNullRethrowsOpenCircuitBreaker()
+    {
+        assertThrows(ArmResilience.CircuitBreakerOpenException.class, () -> CommonSdk.getOrNull(() ->
+        {
+            throw new ArmResilience.CircuitBreakerOpenException("VolumeInner");
+        }));
+    }
+
+    @Test
+    public void pollStopsWhenResourceIsGone()
+    {
+        AtomicInteger polls = new AtomicInteger();
+        assertTrue(CommonSdk.pollUntilGone(() -> polls.incrementAndGet() < 3 ? "volume" : null, 10, () -> { }));
+        assertEquals(3, polls.get());
+    }
+
+    @Test
+    public void pollStopsOnNotFound()
+    {
+        AtomicInteger polls = new AtomicInteger();
+        assertTrue(CommonSdk.pollUntilGone(() ->
+        {
+            polls.incrementAndGet();
+            throw ArmFaults.status(404);
+        }, 10, () -> { }));
+        assertEquals(1, polls.get());
+    }
+
+    @Test
+    public void pollKeepsWaitingAfterErrors()
+    {
+        AtomicInteger polls = new AtomicInteger();
+        assertTrue(CommonSdk.pollUntilGone(() ->
+        {
+            if (polls.incrementAndGet() < 3)
+                throw ArmFaults.status(503);
+            return null;
+        }, 10, () -> { }));
+        assertEquals(3, polls.get());
+    }
+
+    @Test
+    public void pollFailsWhenBreakerStaysOpen()
+    {
+        AtomicInteger sleeps = new AtomicInteger();
+        assertFalse(CommonSdk.pollUntilGone(() ->
+        {
+            throw new ArmResilience.CircuitBreakerOpenException("VolumeInner");
+        }, 5, sleeps::incrementAndGet));
+        assertEquals(5, sleeps.get());
+    }
+
+    @Test
+    public void pollFailsWhenResourceStillExists()
+    {
+        assertFalse(CommonSdk.pollUntilGone(() -> "volume", 5, () -> { }));
+    }
+}